@@ -1,13 +1,29 @@
 package uk.org.anthonyhull.radiotowers;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Calculate the transmitter power required so that all receiving towers on an
@@ -50,7 +66,8 @@ public class RadioTowerCalculator {
 	 */
 	private class ReceivingTower extends Tower {
 
-		// Distances of this tower from each transmitter
+		// Distances of this tower from each transmitter, or only from its
+		// candidate transmitters when candidate lists are in use
 		public final List<DistanceFromTower> distancesFromTransmitters;
 
 		public ReceivingTower(int id, int x, int y) {
@@ -110,6 +127,645 @@ public class RadioTowerCalculator {
 		}
 	}
 
+	/**
+	 * Block of cells in a {@link TransmitterGrid}, with a lower bound on the
+	 * increase in power any transmitter in it would need to reach a receiver.
+	 * 
+	 * @author Anthony
+	 *
+	 */
+	private static class GridBlock implements Comparable<GridBlock> {
+		final int level;
+		final int x;
+		final int y;
+		final long bound;
+
+		public GridBlock(int level, int x, int y, long bound) {
+			this.level = level;
+			this.x = x;
+			this.y = y;
+			this.bound = bound;
+		}
+
+		@Override
+		public int compareTo(GridBlock other) {
+			return Long.compare(bound, other.bound);
+		}
+	}
+
+	/**
+	 * The k transmitters found so far that require the smallest increase in
+	 * power to reach a receiver, plus any that tie with the k-th.
+	 * 
+	 * The k smallest are kept in a max-heap, so the k-th is always at the top.
+	 * 
+	 * @author Anthony
+	 *
+	 */
+	private class CandidateSelection {
+		private final int k;
+		private final PriorityQueue<DistanceFromTower> smallest;
+
+		// Transmitters requiring the same increase as the top of the heap
+		private final List<DistanceFromTower> ties = new ArrayList<>();
+
+		public CandidateSelection(int k) {
+			this.k = k;
+			smallest = new PriorityQueue<>(k, new Comparator<DistanceFromTower>() {
+				@Override
+				public int compare(DistanceFromTower d1, DistanceFromTower d2) {
+					return Integer.compare(increaseRequired(d2), increaseRequired(d1));
+				}
+			});
+		}
+
+		public void add(final DistanceFromTower distance) {
+			if (smallest.size() < k) {
+				smallest.add(distance);
+				return;
+			}
+
+			final int increase = increaseRequired(distance);
+			final int kthIncrease = kthIncrease();
+			if (increase == kthIncrease) {
+				ties.add(distance);
+			} else if (increase < kthIncrease) {
+				// Replace the k-th: it (and its ties) remain candidates only
+				// if they still tie with the new k-th
+				smallest.add(distance);
+				final DistanceFromTower replaced = smallest.poll();
+				if (kthIncrease == kthIncrease()) {
+					ties.add(replaced);
+				} else {
+					ties.clear();
+				}
+			}
+		}
+
+		public boolean isFull() {
+			return smallest.size() >= k;
+		}
+
+		public int kthIncrease() {
+			return increaseRequired(smallest.peek());
+		}
+
+		/**
+		 * All candidates, in transmitter id order
+		 */
+		public List<DistanceFromTower> getCandidates() {
+			final List<DistanceFromTower> candidates = new ArrayList<>(smallest);
+			candidates.addAll(ties);
+			Collections.sort(candidates, new Comparator<DistanceFromTower>() {
+				@Override
+				public int compare(DistanceFromTower d1, DistanceFromTower d2) {
+					return Integer.compare(d1.towerId, d2.towerId);
+				}
+			});
+			return candidates;
+		}
+	}
+
+	/**
+	 * Grid of the transmitting towers, used to find the transmitters that
+	 * require the smallest increase in power to reach a receiver without
+	 * looking at every transmitter.
+	 * 
+	 * The island is divided into square cells, sized so that there is about
+	 * one transmitter per cell. Above the cells is a pyramid of levels, each
+	 * combining 2x2 blocks of the level below, holding the largest current
+	 * power of any transmitter in each block. Blocks are searched in order of
+	 * the smallest increase a transmitter in them could need, so a single
+	 * powerful transmitter only affects the blocks that contain it.
+	 * 
+	 * The grid also records which transmitters have had their power increased,
+	 * so that each receiver's candidates need only be checked against those.
+	 * 
+	 * @author Anthony
+	 *
+	 */
+	private class TransmitterGrid {
+		private final int cellSize;
+		private final int columns;
+		private final int rows;
+
+		// Transmitter indexes, grouped by cell: cell c holds
+		// cellTransmitters[cellStart[c]] to cellTransmitters[cellStart[c + 1] - 1]
+		private final int[] cellStart;
+		private final int[] cellTransmitters;
+
+		// Largest current power in each block at each level (level 0 is the
+		// cells), or Integer.MIN_VALUE if the block has no transmitters
+		private final int[][] maxPower;
+		private final int[] levelColumns;
+		private final int[] levelRows;
+
+		// Index of the transmitter given each increase in power, in order
+		private int[] increasedTransmitters = new int[16];
+		private int increaseCount;
+
+		// Number of increases each receiver's candidates have been checked
+		// against, indexed by receiver id - 1
+		private final int[] increasesChecked;
+
+		// Number of transmitters examined while finding candidates
+		private long transmittersExamined;
+
+		public TransmitterGrid() {
+			final double area = (double) dimensions[0] * dimensions[1];
+			cellSize = Math.max(1, (int) Math.ceil(Math.sqrt(area / transmittingTowers.size())));
+			columns = (dimensions[0] + cellSize - 1) / cellSize;
+			rows = (dimensions[1] + cellSize - 1) / cellSize;
+
+			// Count the transmitters in each cell, then place them
+			cellStart = new int[columns * rows + 1];
+			for (final TransmittingTower transmitter : transmittingTowers) {
+				cellStart[cellOf(transmitter) + 1]++;
+			}
+			for (int cell = 0; cell < columns * rows; cell++) {
+				cellStart[cell + 1] += cellStart[cell];
+			}
+			cellTransmitters = new int[transmittingTowers.size()];
+			final int[] next = Arrays.copyOf(cellStart, columns * rows);
+			for (int index = 0; index < transmittingTowers.size(); index++) {
+				cellTransmitters[next[cellOf(transmittingTowers.get(index))]++] = index;
+			}
+
+			// Build the pyramid of largest powers, up to a single block
+			int levels = 1;
+			while ((columns - 1) >> (levels - 1) > 0 || (rows - 1) >> (levels - 1) > 0) {
+				levels++;
+			}
+			maxPower = new int[levels][];
+			levelColumns = new int[levels];
+			levelRows = new int[levels];
+			for (int level = 0; level < levels; level++) {
+				levelColumns[level] = ((columns - 1) >> level) + 1;
+				levelRows[level] = ((rows - 1) >> level) + 1;
+				maxPower[level] = new int[levelColumns[level] * levelRows[level]];
+				Arrays.fill(maxPower[level], Integer.MIN_VALUE);
+			}
+			for (final TransmittingTower transmitter : transmittingTowers) {
+				updateMaxPower(transmitter);
+			}
+
+			increasesChecked = new int[receivingTowers.size()];
+		}
+
+		private int cellOf(final Tower tower) {
+			return (tower.y / cellSize) * columns + tower.x / cellSize;
+		}
+
+		/**
+		 * Record the current power of a transmitter in each block containing it
+		 */
+		private void updateMaxPower(final TransmittingTower transmitter) {
+			final int cellX = transmitter.x / cellSize;
+			final int cellY = transmitter.y / cellSize;
+			for (int level = 0; level < maxPower.length; level++) {
+				final int block = (cellY >> level) * levelColumns[level] + (cellX >> level);
+				maxPower[level][block] = Math.max(maxPower[level][block], transmitter.currentPower);
+			}
+		}
+
+		/**
+		 * Record an increase in the power of a transmitter
+		 */
+		public void powerIncreased(final TransmittingTower transmitter) {
+			if (increaseCount == increasedTransmitters.length) {
+				increasedTransmitters = Arrays.copyOf(increasedTransmitters, increaseCount * 2);
+			}
+			increasedTransmitters[increaseCount++] = transmitter.id - 1;
+			updateMaxPower(transmitter);
+		}
+
+		/**
+		 * Find the candidate transmitters for a receiver: the k transmitters
+		 * requiring the smallest increase in power to reach it, plus any that
+		 * tie with the k-th. The candidates replace the receiver's distances,
+		 * in transmitter id order.
+		 * 
+		 * @return the smallest increase required (not positive if the
+		 *         receiver is already in range)
+		 */
+		public int findCandidates(final ReceivingTower receiver, final int k) {
+			final CandidateSelection selection = new CandidateSelection(k);
+			final PriorityQueue<GridBlock> blocks = new PriorityQueue<>();
+			addBlock(maxPower.length - 1, 0, 0, receiver, blocks);
+
+			// Search the blocks until the k-th smallest increase found is
+			// smaller than any that could be required in a block not yet searched.
+			while (!blocks.isEmpty()) {
+				final GridBlock block = blocks.peek();
+				if (selection.isFull() && selection.kthIncrease() < block.bound) {
+					break;
+				}
+				blocks.poll();
+
+				if (block.level == 0) {
+					final int cell = block.y * columns + block.x;
+					for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+						final TransmittingTower transmitter = transmittingTowers.get(cellTransmitters[i]);
+						selection.add(new DistanceFromTower(transmitter.id, calcDistance(transmitter, receiver)));
+						transmittersExamined++;
+					}
+				} else {
+					for (int dy = 0; dy < 2; dy++) {
+						for (int dx = 0; dx < 2; dx++) {
+							addBlock(block.level - 1, 2 * block.x + dx, 2 * block.y + dy, receiver, blocks);
+						}
+					}
+				}
+			}
+
+			increasesChecked[receiver.id - 1] = increaseCount;
+
+			receiver.distancesFromTransmitters.clear();
+			receiver.distancesFromTransmitters.addAll(selection.getCandidates());
+			return smallestIncrease(receiver);
+		}
+
+		/**
+		 * Queue a block to be searched, unless it is outside the grid or has
+		 * no transmitters
+		 */
+		private void addBlock(final int level, final int x, final int y, final ReceivingTower receiver,
+				final PriorityQueue<GridBlock> blocks) {
+			if (x >= levelColumns[level] || y >= levelRows[level]) {
+				return;
+			}
+			final int power = maxPower[level][y * levelColumns[level] + x];
+			if (power == Integer.MIN_VALUE) {
+				return;
+			}
+
+			// Chebyshev distance from the receiver to the nearest point of the block
+			final long size = (long) cellSize << level;
+			final long distance = Math.max(gap(receiver.x, x * size, (x + 1) * size - 1),
+					gap(receiver.y, y * size, (y + 1) * size - 1));
+			blocks.add(new GridBlock(level, x, y, distance - power));
+		}
+
+		private long gap(final int position, final long low, final long high) {
+			return Math.max(0, Math.max(low - position, position - high));
+		}
+
+		/**
+		 * Check whether a receiver's candidates still include every
+		 * transmitter requiring the smallest increase to reach it.
+		 * 
+		 * When the candidates were found, every other transmitter required a
+		 * larger increase than any candidate. Increases only ever make a
+		 * transmitter cheaper, so only transmitters whose power has been
+		 * increased since the last check need to be looked at.
+		 */
+		public boolean candidatesValid(final ReceivingTower receiver) {
+			final int smallestIncrease = smallestIncrease(receiver);
+			for (int i = increasesChecked[receiver.id - 1]; i < increaseCount; i++) {
+				final TransmittingTower transmitter = transmittingTowers.get(increasedTransmitters[i]);
+				if (!isCandidate(receiver, transmitter.id)
+						&& calcDistance(transmitter, receiver) - transmitter.currentPower <= smallestIncrease) {
+					return false;
+				}
+			}
+			increasesChecked[receiver.id - 1] = increaseCount;
+			return true;
+		}
+
+		private boolean isCandidate(final ReceivingTower receiver, final int transmitterId) {
+			for (final DistanceFromTower candidate : receiver.distancesFromTransmitters) {
+				if (candidate.towerId == transmitterId) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private int smallestIncrease(final ReceivingTower receiver) {
+			int smallestIncrease = Integer.MAX_VALUE;
+			for (final DistanceFromTower candidate : receiver.distancesFromTransmitters) {
+				smallestIncrease = Math.min(smallestIncrease, increaseRequired(candidate));
+			}
+			return smallestIncrease;
+		}
+	}
+
+	/**
+	 * Source of lines of input, each parsed into integers.
+	 * 
+	 * Both ways of initialising the calculator read their input through this,
+	 * so that it is validated by the same code.
+	 * 
+	 * @author Anthony
+	 *
+	 */
+	private interface LineSource {
+		/**
+		 * Move to the next line of input
+		 * 
+		 * @return false if there are no more lines
+		 * @throws IOException
+		 */
+		boolean next() throws IOException;
+
+		/**
+		 * Number of integers on the current line
+		 */
+		int length();
+
+		/**
+		 * Integer at the given index (0 to 3) on the current line
+		 */
+		int get(int index);
+	}
+
+	/**
+	 * Lines read one at a time from a reader.
+	 * 
+	 * @author Anthony
+	 *
+	 */
+	private class ReaderLineSource implements LineSource {
+		private final BufferedReader br;
+		private int[] line;
+
+		public ReaderLineSource(BufferedReader br) {
+			this.br = br;
+		}
+
+		@Override
+		public boolean next() throws IOException {
+			line = readAndSplit(br);
+			return line != null;
+		}
+
+		@Override
+		public int length() {
+			return line.length;
+		}
+
+		@Override
+		public int get(int index) {
+			return line[index];
+		}
+	}
+
+	/**
+	 * Lines of input from one chunk of a file, parsed into primitive arrays.
+	 * 
+	 * For each line we keep the number of integers on the line and the values
+	 * of (up to) the first 4 of them, which is all that the validation needs.
+	 * If a line could not be parsed, parsing of the chunk stops there and the
+	 * exception is kept, to be thrown when the merge reaches that line.
+	 * 
+	 * @author Anthony
+	 *
+	 */
+	private static class ParsedChunk {
+		static final int VALUES_PER_LINE = 4;
+
+		int lines;
+		final int[] lengths;
+		final int[] values;
+		NumberFormatException error;
+
+		ParsedChunk(int lineCount) {
+			lengths = new int[lineCount];
+			values = new int[lineCount * VALUES_PER_LINE];
+		}
+
+		/**
+		 * Add an integer to the line currently being parsed
+		 */
+		void addValue(int value) {
+			final int index = lengths[lines]++;
+			if (index < VALUES_PER_LINE) {
+				values[lines * VALUES_PER_LINE + index] = value;
+			}
+		}
+	}
+
+	/**
+	 * Reads a range of bytes from a file, starting and ending on a line
+	 * boundary, and parses it into a {@link ParsedChunk}.
+	 * 
+	 * Lines are parsed exactly as {@link RadioTowerCalculator#readAndSplit}
+	 * would: the line is trimmed, split on single spaces and each part parsed
+	 * as an integer. Simple numbers are converted directly from the bytes;
+	 * anything else is handed to Integer.parseInt so that the result (or
+	 * exception) is the same.
+	 * 
+	 * @author Anthony
+	 *
+	 */
+	private static class ChunkParser implements Callable<ParsedChunk> {
+		private final FileChannel channel;
+		private final long start;
+		private final int length;
+
+		public ChunkParser(FileChannel channel, long start, int length) {
+			this.channel = channel;
+			this.start = start;
+			this.length = length;
+		}
+
+		@Override
+		public ParsedChunk call() throws IOException {
+			final byte[] bytes = new byte[length];
+			final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, start + buffer.position()) < 0) {
+					throw new IOException("Unexpected end of file at position " + (start + buffer.position()));
+				}
+			}
+
+			final ParsedChunk chunk = new ParsedChunk(countLines(bytes));
+			int lineStart = 0;
+			while (lineStart < length) {
+				// Find the end of the line: "\n", "\r" or "\r\n", as for BufferedReader.readLine()
+				int lineEnd = lineStart;
+				while (lineEnd < length && bytes[lineEnd] != '\n' && bytes[lineEnd] != '\r') {
+					lineEnd++;
+				}
+
+				try {
+					parseLine(bytes, lineStart, lineEnd, chunk);
+				} catch (NumberFormatException ex) {
+					chunk.error = ex;
+					break;
+				}
+				chunk.lines++;
+
+				lineStart = lineEnd + 1;
+				if (lineEnd + 1 < length && bytes[lineEnd] == '\r' && bytes[lineEnd + 1] == '\n') {
+					lineStart++;
+				}
+			}
+			return chunk;
+		}
+
+		/**
+		 * Count the lines in the chunk, so that exactly enough space can be
+		 * allocated for them
+		 */
+		private static int countLines(byte[] bytes) {
+			int lines = 0;
+			for (int i = 0; i < bytes.length; i++) {
+				if (bytes[i] == '\n' || (bytes[i] == '\r' && (i + 1 == bytes.length || bytes[i + 1] != '\n'))) {
+					lines++;
+				}
+			}
+			if (bytes.length > 0 && bytes[bytes.length - 1] != '\n' && bytes[bytes.length - 1] != '\r') {
+				lines++;
+			}
+			return lines;
+		}
+
+		/**
+		 * Parse the integers on the line bytes[from, to) into the chunk
+		 */
+		private static void parseLine(byte[] bytes, int from, int to, ParsedChunk chunk) {
+			// Trim, as for String.trim()
+			while (from < to && (bytes[from] & 0xff) <= ' ') {
+				from++;
+			}
+			while (to > from && (bytes[to - 1] & 0xff) <= ' ') {
+				to--;
+			}
+
+			// Split on single spaces
+			int tokenStart = from;
+			for (int i = from; i <= to; i++) {
+				if (i == to || bytes[i] == ' ') {
+					chunk.addValue(parseInt(bytes, tokenStart, i));
+					tokenStart = i + 1;
+				}
+			}
+		}
+
+		/**
+		 * Parse the integer in bytes[from, to)
+		 */
+		private static int parseInt(byte[] bytes, int from, int to) {
+			int i = from;
+			final boolean negative = i < to && bytes[i] == '-';
+			if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+				i++;
+			}
+
+			// At most 9 digits cannot overflow an int
+			if (i < to && to - i <= 9) {
+				int value = 0;
+				for (; i < to; i++) {
+					final int digit = bytes[i] - '0';
+					if (digit < 0 || digit > 9) {
+						break;
+					}
+					value = value * 10 + digit;
+				}
+				if (i == to) {
+					return negative ? -value : value;
+				}
+			}
+
+			// Not a simple number: let Integer.parseInt decide
+			return Integer.parseInt(new String(bytes, from, to - from, Charset.defaultCharset()));
+		}
+	}
+
+	/**
+	 * Splits a file into chunks, each ending at the end of a line, has them
+	 * parsed by {@link ChunkParser} and iterates over their lines in file
+	 * order, waiting for each chunk to be parsed as it is reached.
+	 * 
+	 * Only a limited number of chunks are parsed ahead of the one being read,
+	 * so that parsing cannot run too far ahead of validation and fill memory.
+	 * 
+	 * @author Anthony
+	 *
+	 */
+	private static class ChunkCursor implements LineSource {
+		private final FileChannel channel;
+		private final ExecutorService executor;
+		private final long chunkSize;
+		private final long size;
+		private final int maxChunksAhead;
+		private final Deque<Future<ParsedChunk>> chunksAhead = new ArrayDeque<>();
+		private long nextChunkStart;
+		private ParsedChunk chunk;
+		private int line;
+
+		public ChunkCursor(FileChannel channel, ExecutorService executor, int threads, long chunkSize)
+				throws IOException {
+			this.channel = channel;
+			this.executor = executor;
+			this.chunkSize = chunkSize;
+			this.size = channel.size();
+			this.maxChunksAhead = 2 * threads;
+		}
+
+		@Override
+		public boolean next() throws IOException {
+			line++;
+			while (chunk == null || line >= chunk.lines) {
+				if (chunk != null && chunk.error != null) {
+					throw chunk.error;
+				}
+				submitChunks();
+				if (chunksAhead.isEmpty()) {
+					return false;
+				}
+				chunk = waitFor(chunksAhead.poll());
+				line = 0;
+			}
+			return true;
+		}
+
+		@Override
+		public int length() {
+			return chunk.lengths[line];
+		}
+
+		@Override
+		public int get(int index) {
+			return chunk.values[line * ParsedChunk.VALUES_PER_LINE + index];
+		}
+
+		/**
+		 * Start parsing further chunks, up to the limit
+		 */
+		private void submitChunks() throws IOException {
+			while (chunksAhead.size() < maxChunksAhead && nextChunkStart < size) {
+				final long start = nextChunkStart;
+				final long end = (size - start <= chunkSize) ? size : findLineEnd(channel, start + chunkSize - 1, size);
+				if (end - start > Integer.MAX_VALUE - 8) {
+					throw new IOException("Line starting after position " + start + " is too long");
+				}
+				chunksAhead.add(executor.submit(new ChunkParser(channel, start, (int) (end - start))));
+				nextChunkStart = end;
+			}
+		}
+
+		private static ParsedChunk waitFor(Future<ParsedChunk> future) throws IOException {
+			try {
+				return future.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while reading input", ex);
+			} catch (ExecutionException ex) {
+				final Throwable cause = ex.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				} else if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new IOException(cause);
+			}
+		}
+	}
+
 	/**
 	 * Report of the solution to the problem, including the information required
 	 * for output: receivers initially within range of a transmitter, total
@@ -185,6 +841,50 @@ public class RadioTowerCalculator {
 	 */
 	private int initialReceiversInRange;
 
+	/**
+	 * Size of the byte ranges into which an input file is split for parallel
+	 * parsing. Each range is extended to the end of the line it finishes in.
+	 */
+	private static final long DEFAULT_CHUNK_SIZE = 64L * 1024 * 1024;
+
+	/**
+	 * Number of candidate transmitters kept for each receiver, or 0 to
+	 * consider every transmitter for every receiver.
+	 */
+	private final int candidatesPerReceiver;
+
+	/**
+	 * Grid of transmitters used to find candidates, if in use
+	 */
+	private TransmitterGrid transmitterGrid;
+
+	// --------------------------------------------------------------------------
+
+	/**
+	 * Create a calculator that considers every transmitter for every receiver
+	 */
+	public RadioTowerCalculator() {
+		this(0);
+	}
+
+	/**
+	 * Create a calculator that keeps, for each receiver, only the transmitters
+	 * requiring the smallest increase in power to reach it. The candidates are
+	 * found again when they can no longer be guaranteed to include the
+	 * cheapest transmitter. The solution is the same as when every
+	 * transmitter is considered.
+	 * 
+	 * @param candidatesPerReceiver
+	 *            number of candidate transmitters to keep per receiver, or 0
+	 *            to consider every transmitter
+	 */
+	public RadioTowerCalculator(final int candidatesPerReceiver) {
+		if (candidatesPerReceiver < 0) {
+			throw new IllegalArgumentException("Number of candidates per receiver must not be negative");
+		}
+		this.candidatesPerReceiver = candidatesPerReceiver;
+	}
+
 	// --------------------------------------------------------------------------
 
 	/**
@@ -195,63 +895,156 @@ public class RadioTowerCalculator {
 	 * @throws IOException
 	 */
 	public void initialise(final Reader reader) throws IOException {
-		final BufferedReader br = new BufferedReader(reader);
+		readTowers(new ReaderLineSource(new BufferedReader(reader)));
+	}
+
+	/**
+	 * Initialise calculator from the given input file, parsing it in parallel
+	 * using one thread per available processor, and validate the input.
+	 * 
+	 * @param file
+	 *            input file
+	 * @throws IOException
+	 * @see #initialise(File, int)
+	 */
+	public void initialise(final File file) throws IOException {
+		initialise(file, Runtime.getRuntime().availableProcessors());
+	}
 
+	/**
+	 * Initialise calculator from the given input file and validate the input.
+	 * 
+	 * The file is split into chunks at line boundaries and the chunks are
+	 * parsed concurrently. The parsed lines are then validated in file order,
+	 * so the result (and any exception thrown for invalid input) is the same
+	 * as for {@link #initialise(Reader)}.
+	 * 
+	 * @param file
+	 *            input file
+	 * @param threads
+	 *            number of threads to parse with
+	 * @throws IOException
+	 */
+	public void initialise(final File file, final int threads) throws IOException {
+		initialise(file, threads, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * As {@link #initialise(File, int)}, with a given chunk size (for testing)
+	 */
+	void initialise(final File file, final int threads, final long chunkSize) throws IOException {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be at least 1");
+		}
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be at least 1");
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			// Validate the lines in order as the chunks are parsed
+			readTowers(new ChunkCursor(raf.getChannel(), executor, threads, chunkSize));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Find the position just after the first line end ("\n", "\r" or
+	 * "\r\n", as for BufferedReader.readLine()) at or after the given
+	 * position, or the end of the file if there is none. A "\r\n" pair is
+	 * never split. (Package-private for testing.)
+	 */
+	static long findLineEnd(final FileChannel channel, long position, final long size) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(8192);
+		boolean afterCarriageReturn = false;
+		while (position < size) {
+			buffer.clear();
+			final int read = channel.read(buffer, position);
+			if (read < 0) {
+				break;
+			}
+			for (int i = 0; i < read; i++) {
+				final byte b = buffer.get(i);
+				if (afterCarriageReturn) {
+					// End after the "\n" of a "\r\n" pair, or just after a lone "\r"
+					return (b == '\n') ? position + i + 1 : position + i;
+				}
+				if (b == '\n') {
+					return position + i + 1;
+				}
+				afterCarriageReturn = (b == '\r');
+			}
+			position += read;
+		}
+		return size;
+	}
+
+	/**
+	 * Read the towers from the given lines of input and validate them
+	 * 
+	 * @param lines
+	 *            input source
+	 * @throws IOException
+	 */
+	private void readTowers(final LineSource lines) throws IOException {
 		// Read dimensions of island
-		dimensions = readAndSplit(br);
-		if (dimensions == null || dimensions.length != 2) {
+		if (!lines.next() || lines.length() != 2) {
 			throw new IllegalArgumentException("Invalid dimensions for island: must be 2 integers");
 		}
+		dimensions = new int[] { lines.get(0), lines.get(1) };
 
 		// Read transmitting towers
 		int last_id = 0;
 		
 		// Read the first transmitter
-		int[] tower = readAndSplit(br);
-		if (tower == null) {
+		boolean more = lines.next();
+		if (!more) {
 			throw new IllegalArgumentException("No transmitting towers");
 		}
-		if (tower[0] != 1) {
+		if (lines.get(0) != 1) {
 			throw new IllegalArgumentException("First transmitting tower must have id of 1");
 		}
 		
 		// Process first and remaining transmitters.
 		// An id out of sequence is assumed to signal the first receiving tower.
-		while (tower != null && tower[0] == last_id + 1) {
-			if (tower.length != 4) {
-				throw new IllegalArgumentException("Transmitting tower " + tower[0] + " must have 4 parameters");
+		while (more && lines.get(0) == last_id + 1) {
+			final int id = lines.get(0);
+			if (lines.length() != 4) {
+				throw new IllegalArgumentException("Transmitting tower " + id + " must have 4 parameters");
 			}
-			if (!validateCoordinates(tower[1], tower[2])) {
-				throw new IllegalArgumentException("Transmitting tower " + tower[0] + " has invalid coordinates");
+			if (!validateCoordinates(lines.get(1), lines.get(2))) {
+				throw new IllegalArgumentException("Transmitting tower " + id + " has invalid coordinates");
 			}
-			transmittingTowers.add(new TransmittingTower(tower[0], tower[1], tower[2], tower[3]));
+			transmittingTowers.add(new TransmittingTower(id, lines.get(1), lines.get(2), lines.get(3)));
 			last_id++;
-			tower = readAndSplit(br);
+			more = lines.next();
 		}
 
 		// id is no longer incrementing - assume we have read the first receiving tower
 		last_id = 0;
-		if (tower == null) {
+		if (!more) {
 			throw new IllegalArgumentException("No receiving towers");
 		}
-		if (tower[0] != 1) {
-			throw new IllegalArgumentException("First receiving tower " + tower[0] + " must have id of 1");
+		if (lines.get(0) != 1) {
+			throw new IllegalArgumentException("First receiving tower " + lines.get(0) + " must have id of 1");
 		}
 		
 		// Process this and remaining receivers
-		while (tower != null) {
-			if (tower[0] != last_id + 1) {
-				throw new IllegalArgumentException("Receiving tower id " + tower[0] + " is out of sequence");
+		while (more) {
+			final int id = lines.get(0);
+			if (id != last_id + 1) {
+				throw new IllegalArgumentException("Receiving tower id " + id + " is out of sequence");
 			}
-			if (tower.length != 3) {
+			if (lines.length() != 3) {
 				throw new IllegalArgumentException("Receiving tower must have 3 parameters");
 			}
-			if (!validateCoordinates(tower[1], tower[2])) {
-				throw new IllegalArgumentException("Receiving tower " + tower[0] + " has invalid coordinates");
+			if (!validateCoordinates(lines.get(1), lines.get(2))) {
+				throw new IllegalArgumentException("Receiving tower " + id + " has invalid coordinates");
 			}
-			receivingTowers.add(new ReceivingTower(tower[0], tower[1], tower[2]));
+			receivingTowers.add(new ReceivingTower(id, lines.get(1), lines.get(2)));
 			last_id++;
-			tower = readAndSplit(br);
+			more = lines.next();
 		}
 
 		totalReceivers = receivingTowers.size();
@@ -295,6 +1088,9 @@ public class RadioTowerCalculator {
 	 */
 	public Solution calculate() {
 		initialReceiversInRange = 0;
+		if (candidatesPerReceiver > 0) {
+			transmitterGrid = new TransmitterGrid();
+		}
 
 		// For each receiver, calculate its distance from each transmitter.
 		// If a receiver is already in range of a transmitter, remove it from
@@ -304,16 +1100,25 @@ public class RadioTowerCalculator {
 			final ReceivingTower receiver = receiverIterator.next();
 			boolean inRange = false;
 
-			// For each transmitter, add its distance to the list, unless
-			// already in range.
-			for (final TransmittingTower transmitter : transmittingTowers) {
-				final int distance = calcDistance(transmitter, receiver);
-				if (distance <= transmitter.currentPower) {
+			if (transmitterGrid != null) {
+				// Keep only the candidate transmitters: the receiver is in
+				// range if the cheapest of them needs no increase.
+				if (transmitterGrid.findCandidates(receiver, candidatesPerReceiver) <= 0) {
 					inRange = true;
 					initialReceiversInRange++;
-					break;
-				} else {
-					receiver.distancesFromTransmitters.add(new DistanceFromTower(transmitter.id, distance));
+				}
+			} else {
+				// For each transmitter, add its distance to the list, unless
+				// already in range.
+				for (final TransmittingTower transmitter : transmittingTowers) {
+					final int distance = calcDistance(transmitter, receiver);
+					if (distance <= transmitter.currentPower) {
+						inRange = true;
+						initialReceiversInRange++;
+						break;
+					} else {
+						receiver.distancesFromTransmitters.add(new DistanceFromTower(transmitter.id, distance));
+					}
 				}
 			}
 
@@ -361,12 +1166,17 @@ public class RadioTowerCalculator {
 		// Build up the above map
 		for (final ReceivingTower receiver : receivingTowers) {
 			
+			// Find new candidates if a transmitter that is not a candidate
+			// may now be the cheapest
+			if (transmitterGrid != null && !transmitterGrid.candidatesValid(receiver)) {
+				transmitterGrid.findCandidates(receiver, candidatesPerReceiver);
+			}
+
 			// Iterate over the distances of this receiver from the various transmitters
 			for (final DistanceFromTower distanceFromTransmitter : receiver.distancesFromTransmitters) {
 				
 				// Calculate the increase in power required to bring this receiver into range of this transmitter.
-				final int increaseRequired = distanceFromTransmitter.distance
-						- transmittingTowers.get(distanceFromTransmitter.towerId - 1).currentPower;
+				final int increaseRequired = increaseRequired(distanceFromTransmitter);
 
 				if (smallestIncrease != null && increaseRequired > smallestIncrease) {
 					// We have already found a smaller increase that will bring some receiver(s) into range.
@@ -408,12 +1218,33 @@ public class RadioTowerCalculator {
 		}
 		
 		// Apply the increase
-		transmittingTowers.get(transmitterId - 1).currentPower += smallestIncrease;
+		final TransmittingTower transmitter = transmittingTowers.get(transmitterId - 1);
+		transmitter.currentPower += smallestIncrease;
+		if (transmitterGrid != null) {
+			transmitterGrid.powerIncreased(transmitter);
+		}
 		
 		// Remove receivers that are now in range
 		receivingTowers.removeAll(increases.get(transmitterId));
 	}
 
+	/**
+	 * Number of transmitters examined while finding candidate transmitters
+	 * (for testing)
+	 */
+	long transmittersExamined() {
+		return transmitterGrid == null ? 0 : transmitterGrid.transmittersExamined;
+	}
+
+	/**
+	 * Calculate the increase in power required to bring a receiver into range
+	 * of a transmitter, given the receiver's distance from it.
+	 */
+	private int increaseRequired(final DistanceFromTower distanceFromTransmitter) {
+		return distanceFromTransmitter.distance
+				- transmittingTowers.get(distanceFromTransmitter.towerId - 1).currentPower;
+	}
+
 	/**
 	 * Calculate the Chebyshev distance between two towers.
 	 * 
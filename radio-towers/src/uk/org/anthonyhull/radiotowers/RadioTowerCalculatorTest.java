@@ -1,9 +1,17 @@
 package uk.org.anthonyhull.radiotowers;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 
 import org.junit.Test;
 
@@ -224,12 +232,325 @@ public class RadioTowerCalculatorTest {
 		runTest(input);
 	}
 
+	//---------------------------------------------------------------
+	// Candidate transmitters per receiver
+	//---------------------------------------------------------------
+
+	// The given example
+	private static final String EXAMPLE =
+			"10 10\n" + 
+			"1 2 5 1\n" +
+			"2 0 6 3\n" +
+			"3 1 2 2\n" +
+			"4 3 5 3\n" +
+			"1 0 1\n" +
+			"2 8 8\n" +
+			"3 6 5";
+
+	@Test
+	public void testExampleWithCandidates() throws IOException {
+		assertExampleSolution(runTest(EXAMPLE, 1));
+	}
+
+	@Test
+	public void testMultipleIncreasesWithCandidates() throws IOException {
+		final String input =
+				"10 10\n" + 
+				"1 1 4 1\n" +
+				"2 3 4 1\n" +
+				"3 6 3 1\n" +
+				"1 2 2\n" +
+				"2 4 2\n" +
+				"3 9 0";
+		
+		for (int candidates = 1; candidates <= 4; candidates++) {
+			assertEquals(runTest(input).toString(), runTest(input, candidates).toString());
+		}
+	}
+
+	@Test
+	public void testManyTowersWithCandidates() throws IOException {
+		// Candidate lists must give the same solution as considering every
+		// transmitter, including when they have to be found again
+		final String input = generateInput(200, 150, 60, 500, 0);
+
+		final String expected = runTest(input).toString();
+		for (final int candidates : new int[] { 1, 2, 3, 5, 60, 100 }) {
+			assertEquals("Candidates " + candidates, expected, runTest(input, candidates).toString());
+		}
+	}
+
+	@Test
+	public void testDominantTransmitterWithCandidates() throws IOException {
+		// One transmitter can reach most of the island. The search for
+		// candidates must still examine only a small part of the grid.
+		final String input = generateInput(2000, 2000, 2000, 300, 1500);
+
+		final RadioTowerCalculator calc = new RadioTowerCalculator(8);
+		calc.initialise(new StringReader(input));
+		assertEquals(runTest(input).toString(), calc.calculate().toString());
+		assertTrue("Transmitters examined: " + calc.transmittersExamined(),
+				calc.transmittersExamined() < 300L * 2000 / 10);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNegativeCandidates() {
+		new RadioTowerCalculator(-1);
+	}
+
+	//---------------------------------------------------------------
+	// Parallel initialisation from a file
+	//---------------------------------------------------------------
+
+	@Test
+	public void testExampleFromFile() throws IOException {
+		// Run the example with a chunk per line or two
+		final String input = 
+			"10 10\n" + 
+			"1 2 5 1\n" +
+			"2 0 6 3\n" +
+			"3 1 2 2\n" +
+			"4 3 5 3\n" +
+			"1 0 1\n" +
+			"2 8 8\n" +
+			"3 6 5\n";
+		
+		final Solution soln = runFileTest(input, 4, 5);
+		assertEquals(3, soln.totalReceivers);
+		assertEquals(2, soln.receiversWithInitialSignal);
+
+		assertEquals(1, soln.powerIncreases.size());
+		final PowerIncrease inc1 = soln.powerIncreases.get(0);
+		assertEquals(4, inc1.transmitterId);
+		assertEquals(5, inc1.newPower);
+	}
+
+	@Test
+	public void testWindowsLineEndingsFromFile() throws IOException {
+		final String input =
+				"10 10\r\n" + 
+				"1 1 4 1\r\n" +
+				"2 3 4 1\r\n" +
+				"3 6 3 1\r\n" +
+				"1 2 2\r\n" +
+				"2 4 2\r\n" +
+				"3 9 0";
+		
+		final Solution soln = runFileTest(input, 2, 1);
+		assertEquals(3, soln.totalReceivers);
+		assertEquals(0, soln.receiversWithInitialSignal);
+		assertEquals(2, soln.powerIncreases.size());
+	}
+
+	@Test
+	public void testLargeFileMatchesReader() throws IOException {
+		// Enough towers to be split into many chunks
+		final StringBuilder input = new StringBuilder("1000 1000\n");
+		for (int id = 1; id <= 50; id++) {
+			input.append(id).append(' ').append((id * 37) % 1000).append(' ').append((id * 91) % 1000).append(" 10\n");
+		}
+		for (int id = 1; id <= 2000; id++) {
+			input.append(id).append(' ').append((id * 13) % 1000).append(' ').append((id * 29) % 1000).append('\n');
+		}
+
+		final Solution expected = runTest(input.toString());
+		final Solution actual = runFileTest(input.toString(), 3, 1024);
+		assertEquals(expected.toString(), actual.toString());
+	}
+
+	@Test
+	public void testCarriageReturnLineEndingsFromFile() throws IOException {
+		// Lines ending in a lone "\r" must still be split into many chunks
+		final String input =
+				"10 10\r" + 
+				"1 1 4 1\r" +
+				"2 3 4 1\r" +
+				"3 6 3 1\r" +
+				"1 2 2\r" +
+				"2 4 2\r" +
+				"3 9 0\r";
+		
+		for (int chunkSize = 1; chunkSize <= 8; chunkSize++) {
+			assertEquals(runTest(input).toString(), runFileTest(input, 2, chunkSize).toString());
+		}
+	}
+
+	@Test
+	public void testChunkEndsAfterCarriageReturn() throws IOException {
+		// A lone "\r" ends a chunk; a "\r\n" pair is kept together
+		final File file = writeTempFile("10 10\r1 1 4 1\r\n1 2 2");
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			final FileChannel channel = raf.getChannel();
+			assertEquals(6, RadioTowerCalculator.findLineEnd(channel, 0, channel.size()));
+			assertEquals(6, RadioTowerCalculator.findLineEnd(channel, 5, channel.size()));
+			assertEquals(15, RadioTowerCalculator.findLineEnd(channel, 6, channel.size()));
+			assertEquals(15, RadioTowerCalculator.findLineEnd(channel, 13, channel.size()));
+			assertEquals(15, RadioTowerCalculator.findLineEnd(channel, 14, channel.size()));
+			assertEquals(20, RadioTowerCalculator.findLineEnd(channel, 15, channel.size()));
+		} finally {
+			file.delete();
+		}
+	}
+
+	//---------------------------------------------------------------
+	// Data errors from a file: each should fail in the same way whether
+	// read sequentially or in parallel
+	//---------------------------------------------------------------
+
+	@Test
+	public void testEmptyFileFromFile() throws IOException {
+		assertSameFailure("");
+	}
+
+	@Test
+	public void testNoTowersFromFile() throws IOException {
+		assertSameFailure("10 10");
+	}
+
+	@Test
+	public void testInvalidDimensionsFromFile() throws IOException {
+		assertSameFailure("10 10 11\n1 1 4 1\n1 2 2\n");
+	}
+
+	@Test
+	public void testTransmittingTowerIdNot1FromFile() throws IOException {
+		assertSameFailure("10 10\n2 1 4 1\n3 3 4 1\n1 2 2\n");
+	}
+
+	@Test
+	public void testWrongNumberOfParametersForTransmitterFromFile() throws IOException {
+		assertSameFailure("10 10\n1 1 4\n2 3 4 1\n1 2 2\n");
+	}
+
+	@Test
+	public void testTransmitterCoordinatesWrongFromFile() throws IOException {
+		assertSameFailure("10 10\n1 1 10 1\n2 3 4 1\n1 2 2\n");
+	}
+
+	@Test
+	public void testNoReceiversFromFile() throws IOException {
+		assertSameFailure("10 10\n1 1 4 1\n2 3 4 1\n");
+	}
+
+	@Test
+	public void testFirstReceiverIdNot1FromFile() throws IOException {
+		assertSameFailure("10 10\n1 1 4 1\n2 3 4 1\n2 2 2\n3 4 2\n");
+	}
+
+	@Test
+	public void testReceiverCoordinatesWrongFromFile() throws IOException {
+		assertSameFailure("10 10\n1 1 4 1\n2 3 4 1\n1 2 2\n2 10 2\n");
+	}
+
+	@Test
+	public void testReceiverWrongNumberOfParametersFromFile() throws IOException {
+		assertSameFailure("10 10\n1 1 4 1\n2 3 4 1\n1 2 2 6\n2 4 2\n");
+	}
+
+	@Test
+	public void testReceiverIdOutOfSequenceFromFile() throws IOException {
+		assertSameFailure("10 10\n1 1 4 1\n2 3 4 1\n1 2 2\n2 4 2\n4 4 2\n");
+	}
+
+	@Test
+	public void testEmptyLineFromFile() throws IOException {
+		assertSameFailure("10 10\n1 1 4 1\n\n1 2 2\n");
+	}
+
+	@Test
+	public void testDoubleSpaceFromFile() throws IOException {
+		assertSameFailure("10 10\n1 1  4 1\n1 2 2\n");
+	}
+
+	@Test
+	public void testNotANumberFromFile() throws IOException {
+		assertSameFailure("10 10\n1 1 4 1\n1 2 x\n");
+	}
+
+	@Test
+	public void testNumberTooLargeFromFile() throws IOException {
+		assertSameFailure("10 10\n1 1 4 99999999999\n1 2 2\n");
+	}
+
 	//---------------------------------------------------------------
 
 	private Solution runTest(final String input) throws IOException {
-		final RadioTowerCalculator calc = new RadioTowerCalculator();
+		return runTest(input, 0);
+	}
+
+	private Solution runTest(final String input, final int candidatesPerReceiver) throws IOException {
+		final RadioTowerCalculator calc = new RadioTowerCalculator(candidatesPerReceiver);
 		calc.initialise(new StringReader(input));
 		return calc.calculate();
 	}
 
+	private Solution runFileTest(final String input, final int threads, final long chunkSize) throws IOException {
+		final File file = writeTempFile(input);
+		try {
+			final RadioTowerCalculator calc = new RadioTowerCalculator();
+			calc.initialise(file, threads, chunkSize);
+			return calc.calculate();
+		} finally {
+			file.delete();
+		}
+	}
+
+	private void assertExampleSolution(final Solution soln) {
+		assertEquals(3, soln.totalReceivers);
+		assertEquals(2, soln.receiversWithInitialSignal);
+
+		assertEquals(1, soln.powerIncreases.size());
+		final PowerIncrease inc1 = soln.powerIncreases.get(0);
+		assertEquals(4, inc1.transmitterId);
+		assertEquals(5, inc1.newPower);
+	}
+
+	/**
+	 * Generate an input of the given size, with towers spread over the island.
+	 * The first transmitter has the given power; the others have power 0 to 3.
+	 */
+	private String generateInput(final int width, final int height, final int transmitters, final int receivers,
+			final int firstPower) {
+		final StringBuilder input = new StringBuilder();
+		input.append(width).append(' ').append(height).append('\n');
+		for (int id = 1; id <= transmitters; id++) {
+			input.append(id).append(' ').append((id * 37) % width).append(' ').append((id * 91) % height)
+					.append(' ').append(id == 1 ? firstPower : id % 4).append('\n');
+		}
+		for (int id = 1; id <= receivers; id++) {
+			input.append(id).append(' ').append((id * 13) % width).append(' ').append((id * 29) % height).append('\n');
+		}
+		return input.toString();
+	}
+
+	private void assertSameFailure(final String input) throws IOException {
+		final Exception expected = runFailingTest(input, false);
+		final Exception actual = runFailingTest(input, true);
+		assertNotNull("Sequential read should fail", expected);
+		assertNotNull("Parallel read should fail", actual);
+		assertEquals(expected.getClass(), actual.getClass());
+		assertEquals(expected.getMessage(), actual.getMessage());
+	}
+
+	private Exception runFailingTest(final String input, final boolean fromFile) {
+		try {
+			if (fromFile) {
+				runFileTest(input, 2, 3);
+			} else {
+				runTest(input);
+			}
+		} catch (Exception ex) {
+			return ex;
+		}
+		return null;
+	}
+
+	private File writeTempFile(final String input) throws IOException {
+		final File file = File.createTempFile("radio-towers", ".txt");
+		try (final OutputStream out = new FileOutputStream(file)) {
+			out.write(input.getBytes(Charset.defaultCharset()));
+		}
+		return file;
+	}
+
 }
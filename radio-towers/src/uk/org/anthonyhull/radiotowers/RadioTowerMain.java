@@ -1,7 +1,6 @@
 package uk.org.anthonyhull.radiotowers;
 
-import java.io.FileReader;
-import java.io.Reader;
+import java.io.File;
 
 import uk.org.anthonyhull.radiotowers.RadioTowerCalculator.PowerIncrease;
 import uk.org.anthonyhull.radiotowers.RadioTowerCalculator.Solution;
@@ -12,9 +11,8 @@ public class RadioTowerMain {
 
 		try {
 			// Initialise calculator with input file
-			final Reader fileReader = new FileReader("input.txt");
 			final RadioTowerCalculator calculator = new RadioTowerCalculator();
-			calculator.initialise(fileReader);
+			calculator.initialise(new File("input.txt"));
 			
 			// Calculate solution
 			final Solution solution = calculator.calculate();